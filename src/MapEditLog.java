@@ -0,0 +1,474 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Keep a durable record of the edits made to a map planner so that a restart does not need to replay the
+ * whole street import.
+ *
+ * Every addStreet and depotLocation edit is appended to a checksummed log.  Edits are group-committed: they
+ * are buffered and written (and forced to disk) together once groupSize edits are pending, or when sync()
+ * or close() is called.  Until then an appended edit is not durable, and a crash loses up to groupSize - 1
+ * edits; callers that need an edit to survive a crash call sync() before relying on it.
+ *
+ * Every checkpointInterval edits the compacted map (the streets and the depot) is written out as a
+ * checkpoint and the log is emptied, so recovery only loads the latest checkpoint and replays at most
+ * checkpointInterval logged edits, whatever the size of the map.
+ *
+ * Each checkpoint rewrites the whole map, so a bulk import is wrapped in beginImport() and endImport(): no
+ * checkpoint is taken while the import runs and a single one is written at its end, keeping the import
+ * linear in the number of streets.
+ *
+ * The log starts with the sequence number of the checkpoint it continues from.  Opening a log that continues
+ * from a newer checkpoint than the one on disk fails instead of silently dropping the edits in between.
+ */
+public class MapEditLog implements Closeable {
+
+    /**
+     * Receiver for the edits rebuilt during recovery.  Each method reports whether the edit was accepted.
+     */
+    public interface Replay {
+        boolean addStreet(String streetId, Point start, Point end);
+
+        boolean depotLocation(Location depot);
+    }
+
+    static final String LOG_FILE = "edits.log";
+    static final String CHECKPOINT_FILE = "map.checkpoint";
+
+    private static final byte ADD_STREET = 1;
+    private static final byte DEPOT_LOCATION = 2;
+    private static final int CHECKPOINT_MAGIC = 0x4D50434B;
+    // sequence of the checkpoint the log continues from, at the start of the log
+    private static final int LOG_HEADER = 8;
+    // length and checksum in front of each logged edit
+    private static final int RECORD_HEADER = 8;
+
+    private final Path directory;
+    private final int groupSize;
+    private final int checkpointInterval;
+    private final FileChannel log;
+
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private int pendingEdits;
+    private long sequence;
+    private long checkpointSequence;
+    private boolean importing;
+
+    // key = street id Value = start and end of the street, mirrored so checkpoints never ask the planner
+    private final Map<String, Point[]> streets = new LinkedHashMap<>();
+    private Location depot;
+
+    private long recoveryNanos;
+    private int replayedEdits;
+
+    /**
+     * Open the edit log kept in the given directory, loading the latest checkpoint and the log tail.
+     * @param directory -- the directory holding the log and checkpoint files
+     * @param groupSize -- how many edits are buffered before they are written to disk together
+     * @param checkpointInterval -- how many edits are logged between two checkpoints
+     * @throws IOException -- if the log or checkpoint cannot be read
+     */
+    public MapEditLog( Path directory, int groupSize, int checkpointInterval ) throws IOException {
+        if (groupSize < 1 || checkpointInterval < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.directory = directory;
+        this.groupSize = groupSize;
+        this.checkpointInterval = checkpointInterval;
+
+        Files.createDirectories(directory);
+        long started = System.nanoTime();
+        loadCheckpoint();
+        this.log = FileChannel.open(directory.resolve(LOG_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            checkLogHeader();
+            replayTail();
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+        this.recoveryNanos = System.nanoTime() - started;
+    }
+
+    /**
+     * Hand the recovered map to the given receiver: every street in the order it was first added, then
+     * the depot if one was set.
+     * @param target -- the receiver of the recovered edits
+     * @throws IllegalStateException -- if the receiver rejects an edit, since its map would no longer match
+     * the logged one
+     */
+    public void recover( Replay target ) {
+        long started = System.nanoTime();
+        for (Map.Entry<String, Point[]> street : streets.entrySet()) {
+            if (!target.addStreet(street.getKey(), street.getValue()[0], street.getValue()[1])) {
+                throw new IllegalStateException("Recovered street " + street.getKey() + " was rejected");
+            }
+        }
+        if (depot != null && !target.depotLocation(depot)) {
+            throw new IllegalStateException("Recovered depot on street " + depot.getStreetId() + " was rejected");
+        }
+        recoveryNanos += System.nanoTime() - started;
+    }
+
+    /**
+     * Record a street that was added to the map.  The edit is durable only once it has been synced.
+     * @param streetId -- unique identifier for the street
+     * @param start -- coordinates of the starting intersection for the street
+     * @param end -- coordinates of the ending intersection for the street
+     */
+    public void appendAddStreet( String streetId, Point start, Point end ) {
+        checkStreetId(streetId);
+        append(ADD_STREET, out -> {
+            out.writeUTF(streetId);
+            writePoint(out, start);
+            writePoint(out, end);
+        }, () -> streets.put(streetId, new Point[] { start, end }));
+    }
+
+    /**
+     * Record a change of the depot location.  The edit is durable only once it has been synced.
+     * @param location -- the street ID and side of the street of the depot
+     */
+    public void appendDepotLocation( Location location ) {
+        checkStreetId(location.getStreetId());
+        append(DEPOT_LOCATION, out -> writeLocation(out, location), () -> depot = location);
+    }
+
+    /**
+     * Report whether an edit on the given street can be recorded.  Street ids are stored as modified UTF-8,
+     * which is limited to 65535 bytes.
+     * @param streetId -- the street id to check
+     * @return -- true if the street id fits in the log
+     */
+    public boolean canRecord( String streetId ) {
+        int length = 0;
+        for (int i = 0; i < streetId.length(); i++) {
+            char c = streetId.charAt(i);
+            length += (c >= 0x0001 && c <= 0x007F) ? 1 : (c <= 0x07FF ? 2 : 3);
+        }
+        return length <= 0xFFFF;
+    }
+
+    private void checkStreetId(String streetId) {
+        if (!canRecord(streetId)) {
+            throw new IllegalArgumentException("Street id too long to record: " + streetId.length() + " chars");
+        }
+    }
+
+    /**
+     * Hold off the periodic checkpoints while a bulk import is appended.  The import stays in the log until
+     * endImport() is called, so a crash in the middle of it replays the imported edits logged so far.
+     */
+    public void beginImport() {
+        importing = true;
+    }
+
+    /**
+     * Finish a bulk import by writing the map out as a single checkpoint.
+     */
+    public void endImport() {
+        importing = false;
+        checkpoint();
+    }
+
+    /**
+     * Write and force every buffered edit to disk.  Every edit appended before this call survives a crash
+     * once it returns.
+     */
+    public void sync() {
+        if (pendingEdits == 0) {
+            return;
+        }
+        try {
+            ByteBuffer batch = ByteBuffer.wrap(pending.toByteArray());
+            while (batch.hasRemaining()) {
+                log.write(batch, log.size());
+            }
+            log.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        pending.reset();
+        pendingEdits = 0;
+    }
+
+    /**
+     * Write the compacted map as the new checkpoint and empty the log.  The checkpoint is written next to
+     * the old one and renamed over it, so a crash leaves either the old or the new checkpoint in place.
+     */
+    public void checkpoint() {
+        sync();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeLong(sequence);
+            out.writeInt(streets.size());
+            for (Map.Entry<String, Point[]> street : streets.entrySet()) {
+                out.writeUTF(street.getKey());
+                writePoint(out, street.getValue()[0]);
+                writePoint(out, street.getValue()[1]);
+            }
+            out.writeBoolean(depot != null);
+            if (depot != null) {
+                writeLocation(out, depot);
+            }
+            out.writeInt(checksum(bytes.toByteArray(), 0, bytes.size()));
+
+            Path temporary = directory.resolve(CHECKPOINT_FILE + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, directory.resolve(CHECKPOINT_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory();
+
+            // Edits up to the checkpoint sequence are skipped on recovery, so a crash before this
+            // truncation only costs a longer replay.
+            writeLogHeader(sequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        checkpointSequence = sequence;
+    }
+
+    /**
+     * Report how long the restart took: reading the checkpoint and the log tail when the log was opened,
+     * plus handing the map to the planner in recover().
+     * @return -- the recovery time in nanoseconds
+     */
+    public long recoveryNanos() {
+        return recoveryNanos;
+    }
+
+    /**
+     * Report how many logged edits were replayed on top of the checkpoint when the log was opened.
+     * @return -- the number of edits read from the log tail
+     */
+    public int replayedEdits() {
+        return replayedEdits;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            log.close();
+        }
+    }
+
+    private interface RecordBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Encode an edit and queue it for the next group commit.  The mirrored map is only updated once the
+     * edit has been encoded, so an edit that cannot be written never reaches a checkpoint.
+     */
+    private void append(byte type, RecordBody body, Runnable apply) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(sequence + 1);
+            out.writeByte(type);
+            body.write(out);
+
+            byte[] payload = bytes.toByteArray();
+            DataOutputStream header = new DataOutputStream(pending);
+            header.writeInt(payload.length);
+            header.writeInt(checksum(payload, 0, payload.length));
+            pending.write(payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        sequence++;
+        apply.run();
+        pendingEdits++;
+
+        if (!importing && sequence - checkpointSequence >= checkpointInterval) {
+            checkpoint();
+        } else if (pendingEdits >= groupSize) {
+            sync();
+        }
+    }
+
+    private void loadCheckpoint() throws IOException {
+        Path file = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length < 4
+                || checksum(bytes, 0, bytes.length - 4) != ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt()) {
+            throw new IOException("Corrupt checkpoint " + file);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 4));
+        if (in.readInt() != CHECKPOINT_MAGIC) {
+            throw new IOException("Not a map checkpoint " + file);
+        }
+        sequence = in.readLong();
+        checkpointSequence = sequence;
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String streetId = in.readUTF();
+            streets.put(streetId, new Point[] { readPoint(in), readPoint(in) });
+        }
+        if (in.readBoolean()) {
+            depot = readLocation(in);
+        }
+    }
+
+    /**
+     * Make the checkpoint rename durable by forcing the directory.  Without this a crash could bring back the
+     * old checkpoint next to an emptied log.  Some platforms, Windows among them, cannot open a directory
+     * as a channel; there directory sync is not supported and the rename is left to the file system.
+     */
+    private void forceDirectory() throws IOException {
+        FileChannel parent;
+        try {
+            parent = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (parent) {
+            parent.force(true);
+        }
+    }
+
+    /**
+     * Make sure the checkpoint holds every edit the log does not.  A log that continues from a newer
+     * checkpoint than the one on disk means edits were lost, and recovering silently would hide that.
+     */
+    private void checkLogHeader() throws IOException {
+        if (log.size() < LOG_HEADER) {
+            writeLogHeader(checkpointSequence);
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+        readFully(header, 0);
+        header.flip();
+        long base = header.getLong();
+        if (base > checkpointSequence) {
+            throw new IOException("Edit log continues from edit " + base + " but the checkpoint only holds edits up to "
+                    + checkpointSequence);
+        }
+    }
+
+    private void writeLogHeader(long base) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+        header.putLong(base);
+        header.flip();
+        while (header.hasRemaining()) {
+            log.write(header, header.position());
+        }
+        log.truncate(LOG_HEADER);
+        log.force(true);
+    }
+
+    /**
+     * Apply the logged edits that came after the checkpoint.  The log ends at the first short or
+     * mismatched record, which is what an interrupted group commit leaves behind, and is cut there so new
+     * edits are not appended after garbage.
+     */
+    private void replayTail() throws IOException {
+        long size = log.size();
+        long position = LOG_HEADER;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        while (position + RECORD_HEADER <= size) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            int length = header.getInt();
+            int crc = header.getInt();
+            if (length <= 0 || position + RECORD_HEADER + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + RECORD_HEADER);
+            if (checksum(payload.array(), 0, length) != crc) {
+                break;
+            }
+            applyLogged(new DataInputStream(new ByteArrayInputStream(payload.array())));
+            position += RECORD_HEADER + length;
+        }
+        if (position < size) {
+            log.truncate(position);
+            log.force(true);
+        }
+    }
+
+    private void applyLogged(DataInputStream in) throws IOException {
+        long recordSequence = in.readLong();
+        byte type = in.readByte();
+        if (recordSequence <= sequence) {
+            return;
+        }
+        sequence = recordSequence;
+        replayedEdits++;
+        if (type == ADD_STREET) {
+            String streetId = in.readUTF();
+            streets.put(streetId, new Point[] { readPoint(in), readPoint(in) });
+        } else if (type == DEPOT_LOCATION) {
+            depot = readLocation(in);
+        } else {
+            throw new IOException("Unknown edit type " + type);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (log.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static void writePoint(DataOutputStream out, Point point) throws IOException {
+        out.writeInt(point.getX());
+        out.writeInt(point.getY());
+    }
+
+    private static Point readPoint(DataInputStream in) throws IOException {
+        int x = in.readInt();
+        int y = in.readInt();
+        return new Point(x, y);
+    }
+
+    private static void writeLocation(DataOutputStream out, Location location) throws IOException {
+        out.writeUTF(location.getStreetId());
+        out.writeByte(location.getStreetSide().ordinal());
+    }
+
+    private static Location readLocation(DataInputStream in) throws IOException {
+        String streetId = in.readUTF();
+        return new Location(streetId, StreetSide.values()[in.readByte()]);
+    }
+}
@@ -73,6 +73,7 @@ public class MapPlanner {
     protected Location currentLocation;
     private Map<String, Node> nodes = new HashMap<>();
 	private Map<String, Node> graph;
+    private MapEditLog editLog;
     
     private StreetEntry getStreetByStreetId(String id) {
         return this.streets.get(id);
@@ -95,10 +96,17 @@ public class MapPlanner {
      * to a destiation
      * @param depot -- the street ID and side of the street (left or right) where we find the depot
      * @return -- true if the depot was set.  False if there was a problem in setting the depot location.
+     * With an edit log attached, true does not mean the change survives a crash until the log is synced.
      */
     public Boolean depotLocation(Location depot) {
+        if (editLog != null && !editLog.canRecord(depot.getStreetId())) {
+            return false;
+        }
         if (streets.containsKey(depot.getStreetId())) {
             this.currentLocation = depot;
+            if (editLog != null) {
+                editLog.appendDepotLocation(depot);
+            }
             return true;
         }
         return false;
@@ -116,8 +124,13 @@ public class MapPlanner {
      * @param start -- coordinates of the starting intersection for the street
      * @param end -- coordinates of the ending entersection for the street
      * @return -- true if the street could be added.  False if the street isn't available in the map.
+     * With an edit log attached, true does not mean the street survives a crash until the log is synced,
+     * and a street id too long for the log is refused.
      */
     public Boolean addStreet(String streetId, Point start, Point end) {
+        if (editLog != null && !editLog.canRecord(streetId)) {
+            return false;
+        }
         Node fromNode = getNode(start);
         if (fromNode == null) {
             return false;
@@ -129,9 +142,40 @@ public class MapPlanner {
         fromNode.addStreet(streetId, start, end);
         toNode.addStreet(streetId, end, start);
         this.streets.put(streetId, new StreetEntry(streetId, start, end));
+        if (editLog != null) {
+            editLog.appendAddStreet(streetId, start, end);
+        }
         return true;
     }
 
+    /**
+     * Rebuild the map from an edit log and record every later street or depot change in it.  The map is
+     * restored from the latest checkpoint plus the edits logged after it, so a restart does not replay
+     * the whole street import.
+     *
+     * Edits are group-committed by the log, so call sync() or close() on it whenever the edits made so far
+     * must survive a crash.  Edits the log cannot record are refused before the map changes; if writing
+     * the log itself fails, the edit stays in the map and in the log's pending batch, to be written by the
+     * next successful sync.
+     * @param log -- the edit log to recover from and then append to
+     * @throws IllegalStateException -- if the map rejects a recovered street or depot
+     */
+    public void attachEditLog(MapEditLog log) {
+        this.editLog = null;
+        log.recover(new MapEditLog.Replay() {
+            @Override
+            public boolean addStreet(String streetId, Point start, Point end) {
+                return MapPlanner.this.addStreet(streetId, start, end);
+            }
+
+            @Override
+            public boolean depotLocation(Location depot) {
+                return MapPlanner.this.depotLocation(depot);
+            }
+        });
+        this.editLog = log;
+    }
+
     /**
      *  Given a depot location, return the street id of the street that is furthest away from the depot by distance,
      *  allowing for left turns to get to the street.
@@ -17,6 +17,26 @@ public class Route {
         this.streets = new ArrayList<>();       
     }
 
+    /**
+     * Rebuild a route from its stored parts, as read back from a route archive.
+     * @param points -- the points of the route
+     * @param locations -- the location of each leg of the route
+     * @param streets -- the street and turn entries of the route
+     */
+    Route(List<Point> points, List<Location> locations, List<String> streets) {
+        this.points = points;
+        this.locations = locations;
+        this.streets = streets;
+    }
+
+    List<Point> getPoints() {
+        return points;
+    }
+
+    List<Location> getLocations() {
+        return locations;
+    }
+
     public void addStreet(String streetId, String turnDirection) {
         streets.add(streetId + " " + turnDirection);
     }
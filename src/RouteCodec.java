@@ -0,0 +1,425 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact binary archive format for routes and subroutes.
+ *
+ * An archive is a header followed by one record per route.  Within a record:
+ *  - points are stored as zig-zag varint deltas from the previous point (the first from (0, 0));
+ *  - street ids are varint handles into a dictionary shared by the whole archive.  A handle equal to the
+ *    dictionary size introduces a new street id, whose UTF-8 bytes follow;
+ *  - the street side of each location and the turn of each street entry are 2-bit codes, four per byte.
+ *
+ * A subroute record is the record of its route followed by its starting leg and its length in legs.
+ *
+ * Writers and readers stream: a reader decodes one record at a time, so an archive can be scanned without
+ * holding all of its routes in memory.  A reader reports a corrupt or foreign archive as an
+ * UncheckedIOException.
+ */
+public final class RouteCodec {
+
+    private static final int MAGIC = 0x52544531;
+    private static final byte ROUTES = 1;
+    private static final byte SUBROUTES = 2;
+
+    // 2-bit turn codes of the street entries; LITERAL keeps an entry that is not "<street> <turn>" verbatim
+    private static final TurnDirection[] TURN_CODES = { TurnDirection.Left, TurnDirection.Right, TurnDirection.Straight };
+    private static final int LITERAL = 3;
+
+    // limits on the lengths read back, so a corrupt count fails instead of allocating without bound
+    private static final int MAX_ENTRIES = 1 << 20;
+    private static final int MAX_STREET_BYTES = 1 << 16;
+
+    private RouteCodec() {
+    }
+
+    /**
+     * Start an archive of routes on the given stream.
+     * @param out -- the stream to write the archive to
+     * @return -- the writer for the archive
+     */
+    public static Writer<Route> routeWriter( OutputStream out ) {
+        return new Writer<>(out, ROUTES, Writer::writeRoute);
+    }
+
+    /**
+     * Start an archive of subroutes on the given stream.
+     * @param out -- the stream to write the archive to
+     * @return -- the writer for the archive
+     */
+    public static Writer<SubRoute> subRouteWriter( OutputStream out ) {
+        return new Writer<>(out, SUBROUTES, Writer::writeSubRoute);
+    }
+
+    /**
+     * Read an archive of routes from the given stream.
+     * @param in -- the stream holding the archive
+     * @return -- a reader that decodes the routes one at a time
+     */
+    public static Reader<Route> routeReader( InputStream in ) {
+        return new Reader<>(in, ROUTES, Reader::readRoute);
+    }
+
+    /**
+     * Read an archive of subroutes from the given stream.
+     * @param in -- the stream holding the archive
+     * @return -- a reader that decodes the subroutes one at a time
+     */
+    public static Reader<SubRoute> subRouteReader( InputStream in ) {
+        return new Reader<>(in, SUBROUTES, Reader::readSubRoute);
+    }
+
+    private interface Encoder<T> {
+        void encode(Writer<T> writer, T value) throws IOException;
+    }
+
+    private interface Decoder<T> {
+        T decode(Reader<T> reader) throws IOException;
+    }
+
+    /**
+     * Append routes or subroutes to an archive.
+     */
+    public static final class Writer<T> implements Closeable, Flushable {
+        private final OutputStream out;
+        private final Encoder<T> encoder;
+        // key = street id Value = handle of the street id in the archive
+        private final Map<String, Integer> handles = new HashMap<>();
+
+        private Writer(OutputStream out, byte kind, Encoder<T> encoder) {
+            this.out = new BufferedOutputStream(out, 1 << 16);
+            this.encoder = encoder;
+            try {
+                writeInt(MAGIC);
+                this.out.write(kind);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Add one record to the archive.
+         * @param value -- the route or subroute to store
+         */
+        public void write( T value ) {
+            try {
+                encoder.encode(this, value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Push the records written so far to the underlying stream, so they can be read back without
+         * closing the archive.
+         * @throws IOException -- if the underlying stream cannot be written
+         */
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        private void writeSubRoute(SubRoute subRoute) throws IOException {
+            writeRoute(subRoute.parentRoute());
+            writeVarint(zigZag(subRoute.subrouteStart()));
+            writeVarint(zigZag(subRoute.subrouteEnd() - subRoute.subrouteStart()));
+        }
+
+        private void writeRoute(Route route) throws IOException {
+            checkLimits(route);
+            List<Point> points = route.getPoints();
+            writeVarint(points.size());
+            int x = 0;
+            int y = 0;
+            for (Point point : points) {
+                writeVarint(zigZag(point.getX() - x));
+                writeVarint(zigZag(point.getY() - y));
+                x = point.getX();
+                y = point.getY();
+            }
+
+            List<Location> locations = route.getLocations();
+            writeVarint(locations.size());
+            int[] sides = new int[locations.size()];
+            for (int i = 0; i < sides.length; i++) {
+                sides[i] = locations.get(i).getStreetSide().ordinal();
+            }
+            writeCodes(sides);
+            for (Location location : locations) {
+                writeStreet(location.getStreetId());
+            }
+
+            List<String> streets = route.getStreets();
+            writeVarint(streets.size());
+            int[] turns = new int[streets.size()];
+            String[] ids = new String[streets.size()];
+            for (int i = 0; i < turns.length; i++) {
+                String entry = streets.get(i);
+                turns[i] = LITERAL;
+                ids[i] = entry;
+                int space = entry.lastIndexOf(' ');
+                if (space >= 0) {
+                    String turn = entry.substring(space + 1);
+                    for (int code = 0; code < TURN_CODES.length; code++) {
+                        if (TURN_CODES[code].name().equals(turn)) {
+                            turns[i] = code;
+                            ids[i] = entry.substring(0, space);
+                        }
+                    }
+                }
+            }
+            writeCodes(turns);
+            for (String id : ids) {
+                writeStreet(id);
+            }
+        }
+
+        /**
+         * Refuse a route the reader would reject, before any of it is written, so the archive never holds
+         * a partial record.
+         */
+        private void checkLimits(Route route) {
+            if (route.getPoints().size() > MAX_ENTRIES || route.getLocations().size() > MAX_ENTRIES
+                    || route.getStreets().size() > MAX_ENTRIES) {
+                throw new IllegalArgumentException("Route has more than " + MAX_ENTRIES + " entries");
+            }
+            for (Location location : route.getLocations()) {
+                checkStreetLength(location.getStreetId());
+            }
+            for (String entry : route.getStreets()) {
+                checkStreetLength(entry);
+            }
+        }
+
+        private void checkStreetLength(String streetId) {
+            // each char encodes to at most 3 UTF-8 bytes, so short strings need no encoding
+            if (streetId.length() > MAX_STREET_BYTES / 3
+                    && streetId.getBytes(StandardCharsets.UTF_8).length > MAX_STREET_BYTES) {
+                throw new IllegalArgumentException("Street id longer than " + MAX_STREET_BYTES + " bytes");
+            }
+        }
+
+        private void writeStreet(String streetId) throws IOException {
+            Integer handle = handles.get(streetId);
+            if (handle != null) {
+                writeVarint(handle);
+                return;
+            }
+            byte[] bytes = streetId.getBytes(StandardCharsets.UTF_8);
+            handle = handles.size();
+            handles.put(streetId, handle);
+            writeVarint(handle);
+            writeVarint(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeCodes(int[] codes) throws IOException {
+            for (int i = 0; i < codes.length; i += 4) {
+                int packed = 0;
+                for (int j = 0; j < 4 && i + j < codes.length; j++) {
+                    packed |= codes[i + j] << (2 * j);
+                }
+                out.write(packed);
+            }
+        }
+
+        private void writeVarint(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+        private void writeInt(int value) throws IOException {
+            out.write(value >>> 24);
+            out.write(value >>> 16);
+            out.write(value >>> 8);
+            out.write(value);
+        }
+    }
+
+    /**
+     * Iterate over the routes or subroutes of an archive, decoding each one only when it is asked for.
+     */
+    public static final class Reader<T> implements Iterator<T>, Closeable {
+        private final InputStream in;
+        private final Decoder<T> decoder;
+        private final List<String> streetIds = new ArrayList<>();
+        // first byte of the next record, or -1 at the end of the archive
+        private int next = -1;
+
+        private Reader(InputStream in, byte kind, Decoder<T> decoder) {
+            this.in = new BufferedInputStream(in, 1 << 16);
+            this.decoder = decoder;
+            try {
+                if (readInt() != MAGIC || readByte() != kind) {
+                    throw new IOException("Not a " + (kind == ROUTES ? "route" : "subroute") + " archive");
+                }
+                next = this.in.read();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next >= 0;
+        }
+
+        @Override
+        public T next() {
+            if (next < 0) {
+                throw new NoSuchElementException();
+            }
+            try {
+                T value = decoder.decode(this);
+                next = in.read();
+                return value;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private SubRoute readSubRoute() throws IOException {
+            Route route = readRoute();
+            int startLeg = unZigZag(readVarint());
+            int endLeg = startLeg + unZigZag(readVarint());
+            return new SubRoute(route, startLeg, endLeg);
+        }
+
+        private Route readRoute() throws IOException {
+            int count = readLength(MAX_ENTRIES);
+            List<Point> points = new ArrayList<>(count);
+            int x = 0;
+            int y = 0;
+            for (int i = 0; i < count; i++) {
+                x += unZigZag(readVarint());
+                y += unZigZag(readVarint());
+                points.add(new Point(x, y));
+            }
+
+            count = readLength(MAX_ENTRIES);
+            int[] sides = readCodes(count);
+            StreetSide[] streetSides = StreetSide.values();
+            List<Location> locations = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                if (sides[i] >= streetSides.length) {
+                    throw new IOException("Unknown street side code " + sides[i]);
+                }
+                locations.add(new Location(readStreet(), streetSides[sides[i]]));
+            }
+
+            count = readLength(MAX_ENTRIES);
+            int[] turns = readCodes(count);
+            List<String> streets = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = readStreet();
+                streets.add(turns[i] == LITERAL ? id : id + " " + TURN_CODES[turns[i]].name());
+            }
+            return new Route(points, locations, streets);
+        }
+
+        private String readStreet() throws IOException {
+            int handle = readVarint();
+            if (handle < 0) {
+                throw new IOException("Negative street handle " + handle);
+            }
+            if (handle < streetIds.size()) {
+                return streetIds.get(handle);
+            }
+            if (handle > streetIds.size()) {
+                throw new IOException("Unknown street handle " + handle);
+            }
+            byte[] bytes = new byte[readLength(MAX_STREET_BYTES)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) readByte();
+            }
+            String streetId = new String(bytes, StandardCharsets.UTF_8);
+            streetIds.add(streetId);
+            return streetId;
+        }
+
+        private int[] readCodes(int count) throws IOException {
+            int[] codes = new int[count];
+            for (int i = 0; i < count; i += 4) {
+                int packed = readByte();
+                for (int j = 0; j < 4 && i + j < count; j++) {
+                    codes[i + j] = (packed >>> (2 * j)) & 0x3;
+                }
+            }
+            return codes;
+        }
+
+        private int readLength(int limit) throws IOException {
+            int length = readVarint();
+            if (length < 0 || length > limit) {
+                throw new IOException("Length " + length + " out of range");
+            }
+            return length;
+        }
+
+        private int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        // The first byte of each record was already read by the lookahead in next().
+        private int readByte() throws IOException {
+            int b;
+            if (next >= 0) {
+                b = next;
+                next = -1;
+            } else {
+                b = in.read();
+            }
+            if (b < 0) {
+                throw new EOFException();
+            }
+            return b;
+        }
+
+        private int readInt() throws IOException {
+            return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        }
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
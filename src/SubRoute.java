@@ -18,6 +18,14 @@ public class SubRoute {
         this.endLeg = endLeg;
     }
 
+    /**
+     * Return the route from which this subroute is taken
+     * @return -- the full route
+     */
+    Route parentRoute() {
+        return route;
+    }
+
     /**
      * Return the leg number that starts this subroute
      * @return -- the starting leg number
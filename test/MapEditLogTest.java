@@ -0,0 +1,191 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MapEditLogTest {
+
+    private static class Recorder implements MapEditLog.Replay {
+        List<String> streets = new ArrayList<>();
+        Location depot;
+
+        @Override
+        public boolean addStreet(String streetId, Point start, Point end) {
+            streets.add(streetId + " " + start.getX() + "_" + start.getY() + " " + end.getX() + "_" + end.getY());
+            return true;
+        }
+
+        @Override
+        public boolean depotLocation(Location depot) {
+            this.depot = depot;
+            return true;
+        }
+    }
+
+    @Test
+    void recoverFromLog( @TempDir Path dir ) throws IOException {
+        try (MapEditLog log = new MapEditLog( dir, 4, 1000 )) {
+            log.appendAddStreet( "A", new Point( 0, 0 ), new Point( 0, 10 ) );
+            log.appendAddStreet( "B", new Point( 0, 10 ), new Point( 10, 10 ) );
+            log.appendDepotLocation( new Location( "B", StreetSide.Left ) );
+        }
+
+        Recorder recorder = new Recorder();
+        try (MapEditLog log = new MapEditLog( dir, 4, 1000 )) {
+            log.recover( recorder );
+            assertEquals( 3, log.replayedEdits() );
+        }
+        assertEquals( List.of( "A 0_0 0_10", "B 0_10 10_10" ), recorder.streets );
+        assertEquals( "B", recorder.depot.getStreetId() );
+        assertEquals( StreetSide.Left, recorder.depot.getStreetSide() );
+    }
+
+    @Test
+    void checkpointBoundsReplay( @TempDir Path dir ) throws IOException {
+        for (int size : new int[] { 500, 5000, 50000 }) {
+            Path mapDir = dir.resolve( "map" + size );
+            try (MapEditLog log = new MapEditLog( mapDir, 8, 100 )) {
+                log.beginImport();
+                for (int i = 0; i < size; i++) {
+                    log.appendAddStreet( "S" + i, new Point( i, 0 ), new Point( i + 1, 0 ) );
+                }
+                log.endImport();
+                for (int i = 0; i < 250; i++) {
+                    log.appendAddStreet( "S" + (size + i), new Point( i, 1 ), new Point( i + 1, 1 ) );
+                }
+            }
+
+            Recorder recorder = new Recorder();
+            try (MapEditLog log = new MapEditLog( mapDir, 8, 100 )) {
+                log.recover( recorder );
+                assertTrue( log.replayedEdits() <= 100 );
+                assertEquals( 50, log.replayedEdits() );
+            }
+            assertEquals( size + 250, recorder.streets.size() );
+        }
+    }
+
+    @Test
+    void recoveryTimeCoversRebuild( @TempDir Path dir ) throws IOException {
+        try (MapEditLog log = new MapEditLog( dir, 1, 100 )) {
+            log.appendAddStreet( "A", new Point( 0, 0 ), new Point( 0, 10 ) );
+        }
+
+        try (MapEditLog log = new MapEditLog( dir, 1, 100 )) {
+            long opened = log.recoveryNanos();
+            log.recover( new Recorder() {
+                @Override
+                public boolean addStreet(String streetId, Point start, Point end) {
+                    try {
+                        Thread.sleep( 20 );
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return true;
+                }
+            } );
+            assertTrue( log.recoveryNanos() - opened >= 20_000_000L );
+        }
+    }
+
+    @Test
+    void tornTailIsDropped( @TempDir Path dir ) throws IOException {
+        try (MapEditLog log = new MapEditLog( dir, 1, 1000 )) {
+            log.appendAddStreet( "A", new Point( 0, 0 ), new Point( 0, 10 ) );
+        }
+        Files.write( dir.resolve( MapEditLog.LOG_FILE ), new byte[] { 0, 0, 0, 40, 1, 2 }, StandardOpenOption.APPEND );
+
+        try (MapEditLog log = new MapEditLog( dir, 1, 1000 )) {
+            assertEquals( 1, log.replayedEdits() );
+            log.appendAddStreet( "B", new Point( 0, 10 ), new Point( 10, 10 ) );
+        }
+
+        Recorder recorder = new Recorder();
+        try (MapEditLog log = new MapEditLog( dir, 1, 1000 )) {
+            log.recover( recorder );
+        }
+        assertEquals( List.of( "A 0_0 0_10", "B 0_10 10_10" ), recorder.streets );
+    }
+
+    @Test
+    void staleCheckpointIsDetected( @TempDir Path dir ) throws IOException {
+        Path oldCheckpoint = dir.resolve( "old.checkpoint" );
+        try (MapEditLog log = new MapEditLog( dir, 1, 10 )) {
+            for (int i = 0; i < 10; i++) {
+                log.appendAddStreet( "S" + i, new Point( i, 0 ), new Point( i + 1, 0 ) );
+            }
+            Files.copy( dir.resolve( MapEditLog.CHECKPOINT_FILE ), oldCheckpoint );
+            for (int i = 10; i < 20; i++) {
+                log.appendAddStreet( "S" + i, new Point( i, 0 ), new Point( i + 1, 0 ) );
+            }
+        }
+
+        // A lost checkpoint rename: the older checkpoint is back but the log was already emptied.
+        Files.move( oldCheckpoint, dir.resolve( MapEditLog.CHECKPOINT_FILE ), StandardCopyOption.REPLACE_EXISTING );
+        assertThrows( IOException.class, () -> new MapEditLog( dir, 1, 10 ) );
+    }
+
+    @Test
+    void importWritesOneCheckpoint( @TempDir Path dir ) throws IOException {
+        try (MapEditLog log = new MapEditLog( dir, 64, 100 )) {
+            log.beginImport();
+            for (int i = 0; i < 5000; i++) {
+                log.appendAddStreet( "S" + i, new Point( i, 0 ), new Point( i + 1, 0 ) );
+            }
+            assertFalse( Files.exists( dir.resolve( MapEditLog.CHECKPOINT_FILE ) ) );
+            log.endImport();
+            assertTrue( Files.exists( dir.resolve( MapEditLog.CHECKPOINT_FILE ) ) );
+        }
+
+        Recorder recorder = new Recorder();
+        try (MapEditLog log = new MapEditLog( dir, 64, 100 )) {
+            log.recover( recorder );
+            assertEquals( 0, log.replayedEdits() );
+        }
+        assertEquals( 5000, recorder.streets.size() );
+    }
+
+    @Test
+    void rejectedReplayIsReported( @TempDir Path dir ) throws IOException {
+        try (MapEditLog log = new MapEditLog( dir, 1, 100 )) {
+            log.appendAddStreet( "A", new Point( 0, 0 ), new Point( 0, 10 ) );
+            log.appendDepotLocation( new Location( "A", StreetSide.Right ) );
+        }
+
+        try (MapEditLog log = new MapEditLog( dir, 1, 100 )) {
+            assertThrows( IllegalStateException.class, () -> log.recover( new Recorder() {
+                @Override
+                public boolean depotLocation(Location depot) {
+                    return false;
+                }
+            } ) );
+        }
+    }
+
+    @Test
+    void oversizedStreetIdIsNotRecorded( @TempDir Path dir ) throws IOException {
+        String oversized = "X".repeat( 70_000 );
+        try (MapEditLog log = new MapEditLog( dir, 1, 3 )) {
+            assertFalse( log.canRecord( oversized ) );
+            assertThrows( IllegalArgumentException.class,
+                    () -> log.appendAddStreet( oversized, new Point( 0, 0 ), new Point( 0, 10 ) ) );
+            for (int i = 0; i < 4; i++) {
+                log.appendAddStreet( "S" + i, new Point( i, 0 ), new Point( i + 1, 0 ) );
+            }
+        }
+
+        Recorder recorder = new Recorder();
+        try (MapEditLog log = new MapEditLog( dir, 1, 3 )) {
+            log.recover( recorder );
+        }
+        assertEquals( List.of( "S0 0_0 1_0", "S1 1_0 2_0", "S2 2_0 3_0", "S3 3_0 4_0" ), recorder.streets );
+    }
+}
@@ -0,0 +1,99 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measure the throughput and the size of route archives against a plain text encoding of the same routes.
+ *
+ * Run with: java RouteCodecBenchmark [routes] [legs per route]
+ */
+public class RouteCodecBenchmark {
+
+    public static void main( String[] args ) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int legs = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        List<Route> routes = randomRoutes(count, legs, new Random(42));
+
+        long textBytes = textSize(routes);
+        byte[] archive = null;
+        long encodeNanos = Long.MAX_VALUE;
+        long decodeNanos = Long.MAX_VALUE;
+        // keep the best of a few rounds so the JIT has warmed up
+        for (int round = 0; round < 5; round++) {
+            long started = System.nanoTime();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (RouteCodec.Writer<Route> writer = RouteCodec.routeWriter(bytes)) {
+                for (Route route : routes) {
+                    writer.write(route);
+                }
+            }
+            encodeNanos = Math.min(encodeNanos, System.nanoTime() - started);
+            archive = bytes.toByteArray();
+
+            started = System.nanoTime();
+            int decoded = 0;
+            try (RouteCodec.Reader<Route> reader = RouteCodec.routeReader(new ByteArrayInputStream(archive))) {
+                while (reader.hasNext()) {
+                    decoded += reader.next().legs();
+                }
+            }
+            decodeNanos = Math.min(decodeNanos, System.nanoTime() - started);
+            if (decoded != count * legs) {
+                throw new IllegalStateException("Decoded " + decoded + " legs");
+            }
+        }
+
+        System.out.printf("routes: %d, legs per route: %d%n", count, legs);
+        System.out.printf("text: %d bytes, archive: %d bytes, ratio: %.2fx%n",
+                textBytes, archive.length, (double) textBytes / archive.length);
+        System.out.printf("encode: %.0f routes/s, decode: %.0f routes/s%n",
+                count * 1e9 / encodeNanos, count * 1e9 / decodeNanos);
+    }
+
+    /**
+     * Build routes that walk a grid of streets, the way the planner's routes do.
+     */
+    private static List<Route> randomRoutes(int count, int legs, Random random) {
+        TurnDirection[] turns = { TurnDirection.Left, TurnDirection.Right, TurnDirection.Straight };
+        List<Route> routes = new ArrayList<>(count);
+        for (int r = 0; r < count; r++) {
+            List<Point> points = new ArrayList<>(legs);
+            List<Location> locations = new ArrayList<>(legs);
+            List<String> streets = new ArrayList<>(legs);
+            int x = random.nextInt(20_000);
+            int y = random.nextInt(20_000);
+            for (int leg = 0; leg < legs; leg++) {
+                x += random.nextInt(401) - 200;
+                y += random.nextInt(401) - 200;
+                String streetId = "Street-" + random.nextInt(5_000);
+                points.add(new Point(x, y));
+                locations.add(new Location(streetId, random.nextBoolean() ? StreetSide.Left : StreetSide.Right));
+                streets.add(streetId + " " + turns[random.nextInt(turns.length)]);
+            }
+            routes.add(new Route(points, locations, streets));
+        }
+        return routes;
+    }
+
+    private static long textSize(List<Route> routes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Route route : routes) {
+            for (Point point : route.getPoints()) {
+                out.writeUTF(point.getX() + "," + point.getY());
+            }
+            for (Location location : route.getLocations()) {
+                out.writeUTF(location.getStreetId() + " " + location.getStreetSide());
+            }
+            for (String street : route.getStreets()) {
+                out.writeUTF(street);
+            }
+        }
+        out.flush();
+        return bytes.size();
+    }
+}
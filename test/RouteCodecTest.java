@@ -0,0 +1,138 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RouteCodecTest {
+
+    private static Route sampleRoute() {
+        List<Point> points = new ArrayList<>(List.of( new Point( 0, 0 ), new Point( 120, -40 ), new Point( -3, 7 ) ));
+        List<Location> locations = new ArrayList<>(List.of(
+                new Location( "Main", StreetSide.Right ),
+                new Location( "Elm", StreetSide.Left ),
+                new Location( "Main", StreetSide.Left ) ));
+        List<String> streets = new ArrayList<>(List.of( "Main Left", "Elm Straight", "Main UTurn", "Oak" ));
+        return new Route( points, locations, streets );
+    }
+
+    private static Route longRoute() {
+        List<Point> points = new ArrayList<>(List.of(
+                new Point( Integer.MIN_VALUE, Integer.MAX_VALUE ), new Point( Integer.MAX_VALUE, Integer.MIN_VALUE ),
+                new Point( 0, 0 ), new Point( -1, 1 ), new Point( 1_000_000, -1_000_000 ) ));
+        StreetSide[] sides = { StreetSide.Left, StreetSide.Left, StreetSide.Right, StreetSide.Left, StreetSide.Right,
+                StreetSide.Right, StreetSide.Left, StreetSide.Right, StreetSide.Right };
+        String[] turns = { "Left", "Right", "Straight", "UTurn", "Straight", "Left", "Right" };
+        List<Location> locations = new ArrayList<>();
+        for (int i = 0; i < sides.length; i++) {
+            locations.add( new Location( "Street" + (i % 4), sides[i] ) );
+        }
+        List<String> streets = new ArrayList<>();
+        for (int i = 0; i < turns.length; i++) {
+            streets.add( "Street" + (i % 3) + " " + turns[i] );
+        }
+        return new Route( points, locations, streets );
+    }
+
+    private static void assertSameRoute( Route expected, Route actual ) {
+        assertEquals( expected.getPoints().size(), actual.getPoints().size() );
+        for (int i = 0; i < expected.getPoints().size(); i++) {
+            assertEquals( expected.getPoints().get( i ).getX(), actual.getPoints().get( i ).getX() );
+            assertEquals( expected.getPoints().get( i ).getY(), actual.getPoints().get( i ).getY() );
+        }
+        assertEquals( expected.legs(), actual.legs() );
+        for (int leg = 1; leg <= expected.legs(); leg++) {
+            assertEquals( expected.turnOnto( leg ), actual.turnOnto( leg ) );
+            assertEquals( expected.getLocations().get( leg - 1 ).getStreetSide(),
+                    actual.getLocations().get( leg - 1 ).getStreetSide() );
+        }
+        assertEquals( expected.getStreets(), actual.getStreets() );
+    }
+
+    @Test
+    void routeRoundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (RouteCodec.Writer<Route> writer = RouteCodec.routeWriter( bytes )) {
+            writer.write( sampleRoute() );
+            writer.write( new Route() );
+            writer.write( longRoute() );
+            writer.write( sampleRoute() );
+        }
+
+        try (RouteCodec.Reader<Route> reader = RouteCodec.routeReader( new ByteArrayInputStream( bytes.toByteArray() ) )) {
+            assertSameRoute( sampleRoute(), reader.next() );
+            assertSameRoute( new Route(), reader.next() );
+            assertSameRoute( longRoute(), reader.next() );
+            assertSameRoute( sampleRoute(), reader.next() );
+            assertFalse( reader.hasNext() );
+        }
+    }
+
+    @Test
+    void flushMakesRecordsReadable() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (RouteCodec.Writer<Route> writer = RouteCodec.routeWriter( bytes )) {
+            writer.write( sampleRoute() );
+            writer.flush();
+
+            try (RouteCodec.Reader<Route> reader = RouteCodec.routeReader( new ByteArrayInputStream( bytes.toByteArray() ) )) {
+                assertSameRoute( sampleRoute(), reader.next() );
+                assertFalse( reader.hasNext() );
+            }
+        }
+    }
+
+    @Test
+    void subRouteRoundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (RouteCodec.Writer<SubRoute> writer = RouteCodec.subRouteWriter( bytes )) {
+            writer.write( new SubRoute( sampleRoute(), 2, 3 ) );
+        }
+
+        try (RouteCodec.Reader<SubRoute> reader = RouteCodec.subRouteReader( new ByteArrayInputStream( bytes.toByteArray() ) )) {
+            SubRoute subRoute = reader.next();
+            assertEquals( 2, subRoute.subrouteStart() );
+            assertEquals( 3, subRoute.subrouteEnd() );
+            assertSameRoute( sampleRoute(), subRoute.parentRoute() );
+            assertFalse( reader.hasNext() );
+        }
+        assertThrows( UncheckedIOException.class,
+                () -> RouteCodec.routeReader( new ByteArrayInputStream( bytes.toByteArray() ) ) );
+    }
+
+    @Test
+    void corruptArchiveFailsWithIOError() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (RouteCodec.Writer<Route> writer = RouteCodec.routeWriter( bytes )) {
+            writer.write( sampleRoute() );
+            writer.write( sampleRoute() );
+        }
+        byte[] archive = bytes.toByteArray();
+
+        for (int i = 0; i < archive.length; i++) {
+            for (int value : new int[] { 0x00, 0x7F, 0x80, 0xFF, archive[i] ^ 0x01, archive[i] ^ 0x40 }) {
+                byte[] corrupt = archive.clone();
+                corrupt[i] = (byte) value;
+                try (RouteCodec.Reader<Route> reader = RouteCodec.routeReader( new ByteArrayInputStream( corrupt ) )) {
+                    while (reader.hasNext()) {
+                        reader.next();
+                    }
+                } catch (UncheckedIOException e) {
+                    // the only way a corrupt archive may fail
+                }
+            }
+        }
+
+        // A 5-byte varint that decodes to a negative street handle, which no single-byte change produces.
+        byte[] negativeHandle = { 'R', 'T', 'E', '1', 0x01, 0x00, 0x01, 0x00, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, 0x0F };
+        try (RouteCodec.Reader<Route> reader = RouteCodec.routeReader( new ByteArrayInputStream( negativeHandle ) )) {
+            assertThrows( UncheckedIOException.class, reader::next );
+        }
+    }
+}